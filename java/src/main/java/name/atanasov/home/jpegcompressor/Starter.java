@@ -4,12 +4,17 @@ import name.atanasov.home.jpegcompressor.logging.JpegCompressorLogFormatter;
 import name.atanasov.home.jpegcompressor.processing.IStageProcessor;
 import name.atanasov.home.jpegcompressor.processing.ImageCompressionQueue;
 import name.atanasov.home.jpegcompressor.processing.JpegImageCompressionMessage;
+import name.atanasov.home.jpegcompressor.processing.SchedulingPolicy;
 import name.atanasov.home.jpegcompressor.processing.compressing.ImageCompressor;
+import name.atanasov.home.jpegcompressor.processing.distributed.LeaseWorker;
+import name.atanasov.home.jpegcompressor.processing.distributed.WorkCoordinator;
+import name.atanasov.home.jpegcompressor.processing.distributed.WorkDirectory;
 import name.atanasov.home.jpegcompressor.processing.loading.FilesLoader;
 import org.apache.commons.cli.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
@@ -25,6 +30,10 @@ public final class Starter {
     private static final Logger logger = Logger.getLogger(Starter.class.getName());
     private static Starter instance = null;
 
+    private static final String ROLE_LOCAL = "local";
+    private static final String ROLE_COORDINATOR = "coordinator";
+    private static final String ROLE_WORKER = "worker";
+
     private final static ReentrantLock lock = new ReentrantLock(true);
     private boolean envrinmentPrepared = false;
     private boolean applicationRunning = false;
@@ -66,6 +75,10 @@ public final class Starter {
             this.cliArgs.getParsedOptionValue("srcfolder");
             this.cliArgs.getParsedOptionValue("compressionratio");
             this.cliArgs.getParsedOptionValue("compressionthreads");
+            this.cliArgs.getParsedOptionValue("smallfilesbatch");
+            this.cliArgs.getParsedOptionValue("chunksize");
+            this.cliArgs.getParsedOptionValue("leasetimeout");
+            this.cliArgs.getParsedOptionValue("minsavings");
             logger.fine("Successfully parsed CLI arguments!");
 
             if(this.cliArgs.hasOption("help")) {
@@ -116,52 +129,145 @@ public final class Starter {
             lock.unlock();
         }
 
-        File srcFolder = new File(getCliArgument("srcfolder"));
-        if(!srcFolder.exists() || !srcFolder.isDirectory()) {
-            logger.severe("Source folder: [" + getCliArgument("srcfolder") +
+        final String role = getCliArgument("role") == null ? ROLE_LOCAL : getCliArgument("role");
+        if(!ROLE_LOCAL.equals(role) && !ROLE_COORDINATOR.equals(role) && !ROLE_WORKER.equals(role)) {
+            logger.severe("Unknown role: [" + role + "]!");
+            markApplicationStopped();
+
+            return;
+        }
+
+        WorkDirectory workDirectory = null;
+        if(!ROLE_LOCAL.equals(role)) {
+            if(getCliArgument("workdir") == null || getCliArgument("workdir").isEmpty()) {
+                logger.severe("Work directory has to be provided for role: [" + role + "]!");
+                markApplicationStopped();
+
+                return;
+            }
+            workDirectory = new WorkDirectory(new File(getCliArgument("workdir")));
+        }
+
+        final String srcFolderName = getCliArgument("srcfolder");
+        File srcFolder = srcFolderName == null ? null : new File(srcFolderName);
+        if(!ROLE_WORKER.equals(role) && (srcFolder == null || !srcFolder.exists() || !srcFolder.isDirectory())) {
+            logger.severe("Source folder: [" + srcFolderName +
                             "] does not exists or is not a valid directory!");
-            lock.lock();
-            this.applicationRunning = false;
-            lock.unlock();
+            markApplicationStopped();
 
             return;
         }
 
         boolean recursively = getCliArgument("recursively") == null ? false : true;
 
+        final List<File> priorityFolders = new ArrayList<File>();
+        final String priorityFoldersArgument = getCliArgument("priorityfolders");
+        if(priorityFoldersArgument != null) {
+            for(String priorityFolder : priorityFoldersArgument.split(File.pathSeparator)) {
+                if(!priorityFolder.trim().isEmpty()) {
+                    priorityFolders.add(new File(priorityFolder.trim()));
+                }
+            }
+        }
+
+        try {
+            ImageCompressionQueue.getInstance()
+                    .setSchedulingPolicy(SchedulingPolicy.fromCliValue(getCliArgument("schedule")));
+        } catch(IllegalArgumentException iae) {
+            logger.severe(iae.getMessage());
+            markApplicationStopped();
+
+            return;
+        }
+
         List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(2);
-        tasks.add(() -> {
-            IStageProcessor loader = new FilesLoader(srcFolder,
-                    recursively);
-            loader.setMessageQueue(ImageCompressionQueue.getInstance());
-            loader.process();
-            return 0;
-        });
+        if(!ROLE_WORKER.equals(role)) {
+            tasks.add(() -> {
+                IStageProcessor loader = new FilesLoader(srcFolder,
+                        recursively, priorityFolders);
+                loader.setMessageQueue(ImageCompressionQueue.getInstance());
+                loader.process();
+                return 0;
+            });
+        }
 
         final String compressionThreads = getCliArgument("compressionthreads");
         Integer numberOfThreads = compressionThreads == null ? null : Integer.valueOf(compressionThreads);
 
         final String compressionRatio = getCliArgument("compressionratio");
         Float compRatio = compressionRatio == null ? null : Float.valueOf(compressionRatio);
-        tasks.add(() -> {
-            IStageProcessor compressor = new ImageCompressor(numberOfThreads, compRatio);
-            compressor.setMessageQueue(ImageCompressionQueue.getInstance());
-            compressor.process();
-            return 0;
-        });
 
+        final String smallFilesBatch = getCliArgument("smallfilesbatch");
+        Long smallFilesBatchBytes = smallFilesBatch == null ? null : Long.valueOf(smallFilesBatch) * 1024;
 
-        try {
-            ExecutorService executorService = Executors.newCachedThreadPool();
-            List<Future<Integer>> results = executorService.invokeAll(tasks);
+        boolean skipCompressed = getCliArgument("skipcompressed") == null ? false : true;
+
+        final String minSavings = getCliArgument("minsavings");
+        Integer minSavingsPercent = minSavings == null ? null : parsePercent(minSavings);
+        if(minSavingsPercent != null && (minSavingsPercent < 0 || minSavingsPercent > 99)) {
+            logger.severe("Minimal savings: [" + minSavings + "] has to be a percent between 0 and 99!");
+            markApplicationStopped();
+
+            return;
+        }
 
-            int filesLoaded = ((Integer)results.get(0).get()).intValue();
+        final String chunkSizeArgument = getCliArgument("chunksize");
+        Integer chunkSize = chunkSizeArgument == null ? null : Integer.valueOf(chunkSizeArgument);
 
+        final String leaseTimeout = getCliArgument("leasetimeout");
+        Long leaseTimeoutMillis = leaseTimeout == null ? null : Long.valueOf(leaseTimeout) * 1000;
 
-            int filesCompressed = ((Integer)results.get(1).get()).intValue();
+        final String workerIdArgument = getCliArgument("workerid");
+        final String workerId = workerIdArgument == null || workerIdArgument.isEmpty() ?
+                                    ManagementFactory.getRuntimeMXBean().getName().replace('@', '-') :
+                                    workerIdArgument;
 
+        final WorkDirectory sharedWorkDirectory = workDirectory;
+        if(ROLE_COORDINATOR.equals(role)) {
+            final WorkCoordinator coordinator;
+            try {
+                coordinator = new WorkCoordinator(sharedWorkDirectory, chunkSize, leaseTimeoutMillis);
+                coordinator.prepareRun();
+            } catch(IOException | IllegalArgumentException e) {
+                logger.severe("Unable to prepare work directory: [" + getCliArgument("workdir") +
+                                "]. Caused by: " + e.getMessage());
+                markApplicationStopped();
+
+                return;
+            }
+
+            tasks.add(() -> {
+                coordinator.setMessageQueue(ImageCompressionQueue.getInstance());
+                coordinator.process();
+                return 0;
+            });
+        } else if(ROLE_WORKER.equals(role)) {
+            tasks.add(() -> {
+                IStageProcessor worker = new LeaseWorker(sharedWorkDirectory, workerId,
+                        new ImageCompressor(numberOfThreads, compRatio, smallFilesBatchBytes, skipCompressed,
+                                            minSavingsPercent), numberOfThreads == null ? 1 : numberOfThreads);
+                worker.setMessageQueue(ImageCompressionQueue.getInstance());
+                worker.process();
+                return 0;
+            });
+        } else {
+            tasks.add(() -> {
+                IStageProcessor compressor = new ImageCompressor(numberOfThreads, compRatio, smallFilesBatchBytes,
+                                                                 skipCompressed, minSavingsPercent);
+                compressor.setMessageQueue(ImageCompressionQueue.getInstance());
+                compressor.process();
+                return 0;
+            });
+        }
 
-            assert filesLoaded == filesCompressed;
+
+        try {
+            ExecutorService executorService = Executors.newCachedThreadPool();
+            List<Future<Integer>> results = executorService.invokeAll(tasks);
+
+            for(Future<Integer> result : results) {
+                result.get();
+            }
 
             executorService.shutdown();
             executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
@@ -172,9 +278,7 @@ public final class Starter {
         }
 
 
-        lock.lock();
-        this.applicationRunning = false;
-        lock.unlock();
+        markApplicationStopped();
     }
 
 
@@ -183,12 +287,30 @@ public final class Starter {
 
     }
 
+    /**
+     * @param value
+     * @return the parsed percent or -1 if the value is not a number
+     */
+    private static int parsePercent(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch(NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    private void markApplicationStopped() {
+        lock.lock();
+        this.applicationRunning = false;
+        lock.unlock();
+    }
+
 
     private void setupCliOptions() {
         Option srcFolder = Option.builder("srcfolder")
                 .argName("srcfolder")
-                .desc("JPEG image compressor source fodler to start looking for JPEG images.")
-                .required(true)
+                .desc("JPEG image compressor source fodler to start looking for JPEG images. " +
+                        "Not needed by the worker role.")
                 .type(File.class)
                 .numberOfArgs(1)
                 .build();
@@ -221,6 +343,78 @@ public final class Starter {
                 .type(Integer.class)
                 .build();
 
+        Option schedule = Option.builder("schedule")
+                .argName("schedule")
+                .desc("Order in which the images are compressed: fifo (default) compresses them in the " +
+                        "loading order, largestfirst compresses the biggest images first.")
+                .numberOfArgs(1)
+                .build();
+
+        Option priorityFolders = Option.builder("priorityfolders")
+                .argName("priorityfolders")
+                .desc("List of folders, separated by '" + File.pathSeparator + "', which images are " +
+                        "compressed before all the others.")
+                .numberOfArgs(1)
+                .build();
+
+        Option smallFilesBatch = Option.builder("smallfilesbatch")
+                .argName("smallfilesbatch")
+                .desc("Images smaller than this size in KB are taken by a compression thread in batches " +
+                        "not bigger than it in total. Disabled by default.")
+                .numberOfArgs(1)
+                .type(Long.class)
+                .build();
+
+        Option skipCompressed = Option.builder("skipcompressed")
+                .argName("skipcompressed")
+                .desc("Flag indicating if the images which quality, estimated from the JPEG header, is " +
+                        "already at or below the compression ratio will be skipped.")
+                .numberOfArgs(0)
+                .build();
+
+        Option minSavings = Option.builder("minsavings")
+                .argName("minsavings")
+                .desc("Minimal size reduction in percent, between 0 and 99, a compressed image needs to be " +
+                        "written. With 0 only the images not smaller than the original are discarded.")
+                .numberOfArgs(1)
+                .type(Integer.class)
+                .build();
+
+        Option role = Option.builder("role")
+                .argName("role")
+                .desc("Role of this process: local (default) loads and compresses the images, coordinator " +
+                        "loads the images and splits them in chunks in the workdir, worker compresses " +
+                        "the chunks leased from the workdir.")
+                .numberOfArgs(1)
+                .build();
+
+        Option workDir = Option.builder("workdir")
+                .argName("workdir")
+                .desc("Directory shared by the coordinator and the workers.")
+                .numberOfArgs(1)
+                .build();
+
+        Option workerId = Option.builder("workerid")
+                .argName("workerid")
+                .desc("Unique name of the worker. Defaults to the process id and host name.")
+                .numberOfArgs(1)
+                .build();
+
+        Option chunkSize = Option.builder("chunksize")
+                .argName("chunksize")
+                .desc("Number of images in a chunk leased by a worker.")
+                .numberOfArgs(1)
+                .type(Integer.class)
+                .build();
+
+        Option leaseTimeout = Option.builder("leasetimeout")
+                .argName("leasetimeout")
+                .desc("Seconds without heartbeat after which the chunks of a worker are reassigned. " +
+                        "Set on the coordinator only, the workers take it from the workdir.")
+                .numberOfArgs(1)
+                .type(Long.class)
+                .build();
+
         Option help = Option.builder("help")
                 .argName("help")
                 .desc("Prints this message.")
@@ -237,6 +431,16 @@ public final class Starter {
         options.addOption(logFile);
         options.addOption(compressionRatio);
         options.addOption(numberOfCompressionThreads);
+        options.addOption(schedule);
+        options.addOption(priorityFolders);
+        options.addOption(smallFilesBatch);
+        options.addOption(skipCompressed);
+        options.addOption(minSavings);
+        options.addOption(role);
+        options.addOption(workDir);
+        options.addOption(workerId);
+        options.addOption(chunkSize);
+        options.addOption(leaseTimeout);
 
         logger.fine("Successfully configured command line interface arguments!");
 
@@ -0,0 +1,29 @@
+package name.atanasov.home.jpegcompressor.api;
+
+/**
+ * Options of a single {@link JpegCompressor} compression.
+ */
+public class CompressionOptions {
+    private Float compressionRatio = 0.90f;
+
+    public CompressionOptions() {
+
+    }
+
+    /**
+     * @param compressionRatio JPEG quality and scale factor of the compressed image, defaults to 0.90
+     */
+    public CompressionOptions(Float compressionRatio) {
+        if(compressionRatio != null) {
+            if(compressionRatio <= 0 || compressionRatio > 1) {
+                throw new IllegalArgumentException("Compression ratio: [" + compressionRatio +
+                                                    "] has to be in the (0, 1] range!");
+            }
+            this.compressionRatio = compressionRatio;
+        }
+    }
+
+    public float getCompressionRatio() {
+        return this.compressionRatio;
+    }
+}
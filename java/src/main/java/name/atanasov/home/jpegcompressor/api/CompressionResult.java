@@ -0,0 +1,38 @@
+package name.atanasov.home.jpegcompressor.api;
+
+/**
+ * Compressed JPEG image produced by the {@link JpegCompressor}.
+ */
+public class CompressionResult {
+    private final byte[] compressedImage;
+    private final long originalSize;
+    private final long compressionTime;
+
+    public CompressionResult(byte[] compressedImage, long originalSize, long compressionTime) {
+        this.compressedImage = compressedImage;
+        this.originalSize = originalSize;
+        this.compressionTime = compressionTime;
+    }
+
+    public byte[] getCompressedImage() {
+        return this.compressedImage;
+    }
+
+    public long getCompressedSize() {
+        return this.compressedImage.length;
+    }
+
+    /**
+     * @return number of bytes read from the source image
+     */
+    public long getOriginalSize() {
+        return this.originalSize;
+    }
+
+    /**
+     * @return compression time in ms, without the time spent waiting for a free thread
+     */
+    public long getCompressionTime() {
+        return this.compressionTime;
+    }
+}
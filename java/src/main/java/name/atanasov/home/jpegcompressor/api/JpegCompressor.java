@@ -0,0 +1,134 @@
+package name.atanasov.home.jpegcompressor.api;
+
+import name.atanasov.home.jpegcompressor.processing.compressing.JpegCodecPool;
+import name.atanasov.home.jpegcompressor.processing.compressing.JpegImageCodec;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Library entry point for compressing JPEG images in memory, e.g. uploads in a service.
+ *
+ * Unlike the command line application, every instance is independent. The instance owns a bounded pool
+ * of compression threads together with pooled JPEG readers and writers, so it is meant
+ * to be created once and shared. Images are never written to temporary files.
+ */
+public class JpegCompressor implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(JpegCompressor.class.getName());
+
+    private final ThreadPoolExecutor executor;
+    private final JpegCodecPool codecPool;
+
+    public JpegCompressor() {
+        this(Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    /**
+     * @param numberOfThreads number of images compressed in parallel
+     * @param maxQueuedImages number of images waiting for a free thread, above it the compression is rejected
+     */
+    public JpegCompressor(int numberOfThreads, int maxQueuedImages) {
+        this.executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 0L, TimeUnit.MILLISECONDS,
+                                                new ArrayBlockingQueue<Runnable>(maxQueuedImages));
+        this.codecPool = new JpegCodecPool(numberOfThreads);
+    }
+
+    public CompletableFuture<CompressionResult> compress(byte[] jpegImage, CompressionOptions options) {
+        return compress(() -> new ByteArrayInputStream(jpegImage), options);
+    }
+
+    public CompletableFuture<CompressionResult> compress(Path jpegImageFile, CompressionOptions options) {
+        return compress(() -> Files.newInputStream(jpegImageFile), options);
+    }
+
+    /**
+     * The stream is read by a compression thread and closed when the compression completes.
+     * @param jpegImage
+     * @param options
+     * @return
+     */
+    public CompletableFuture<CompressionResult> compress(InputStream jpegImage, CompressionOptions options) {
+        return compress(() -> jpegImage, options);
+    }
+
+    /**
+     * Stops accepting new images and waits for the queued ones to complete.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            codecPool.dispose();
+        }
+    }
+
+    private CompletableFuture<CompressionResult> compress(ImageSource source, CompressionOptions options) {
+        final CompressionOptions compressionOptions = options == null ? new CompressionOptions() : options;
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try (InputStream is = source.open()) {
+                    return compressImage(is, compressionOptions);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            //the caller is notified by the failed future
+            logger.fine("Image compression rejected, all the threads and the queue are busy.");
+            CompletableFuture<CompressionResult> rejected = new CompletableFuture<CompressionResult>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    private CompressionResult compressImage(InputStream is, CompressionOptions options) throws IOException {
+        final long before = System.currentTimeMillis();
+
+        IIOImage srcImage = null;
+        long originalSize = 0;
+        ImageReader reader = codecPool.borrowReader();
+        try (ImageInputStream iis = new MemoryCacheImageInputStream(is)) {
+            srcImage = JpegImageCodec.read(reader, iis);
+            originalSize = iis.getStreamPosition();
+        } finally {
+            codecPool.releaseReader(reader);
+        }
+
+        //the compressed image is expected to be smaller than the original
+        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream((int) Math.max(32,
+                                                        Math.min(originalSize, Integer.MAX_VALUE - 8)));
+        ImageWriter writer = codecPool.borrowWriter();
+        try {
+            try (ImageOutputStream ios = new MemoryCacheImageOutputStream(outputBuffer)) {
+                JpegImageCodec.write(writer, srcImage, ios, options.getCompressionRatio());
+            }
+
+            final long after = System.currentTimeMillis();
+            return new CompressionResult(outputBuffer.toByteArray(), originalSize, after - before);
+        } finally {
+            codecPool.releaseWriter(writer);
+        }
+    }
+
+    private interface ImageSource {
+        InputStream open() throws IOException;
+    }
+}
@@ -1,29 +1,123 @@
 package name.atanasov.home.jpegcompressor.processing;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by anatoli on 8/9/16.
+ *
+ * Messages are ordered by the configured {@link SchedulingPolicy}. Messages loaded from a priority
+ * folder always go first and the interrupting message always goes last.
  */
 public class ImageCompressionQueue {
     private static ImageCompressionQueue ourInstance = new ImageCompressionQueue();
     private BlockingQueue<JpegImageCompressionMessage> internalQueue = null;
+    private SchedulingPolicy schedulingPolicy = SchedulingPolicy.FIFO;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ReentrantLock takeLock = new ReentrantLock(true);
 
     public static ImageCompressionQueue getInstance() {
         return ourInstance;
     }
 
     private ImageCompressionQueue() {
-        internalQueue = new LinkedBlockingQueue<JpegImageCompressionMessage>();
+        internalQueue = new PriorityBlockingQueue<JpegImageCompressionMessage>(64, createComparator(schedulingPolicy));
+    }
+
+    /**
+     * Changes the order in which the messages are dequeued. Has to be invoked before the loading starts.
+     * @param schedulingPolicy
+     */
+    public void setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+        takeLock.lock();
+        try {
+            if(!internalQueue.isEmpty()) {
+                throw new IllegalStateException("Scheduling policy can not be changed while messages are queued!");
+            }
+            this.schedulingPolicy = schedulingPolicy;
+            this.internalQueue = new PriorityBlockingQueue<JpegImageCompressionMessage>(64,
+                                                                createComparator(schedulingPolicy));
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return this.schedulingPolicy;
     }
 
     public void put(JpegImageCompressionMessage message) throws InterruptedException {
+        message.setSequenceNumber(sequence.incrementAndGet());
         internalQueue.put(message);
     }
 
+    /**
+     * @return number of messages waiting in the queue, not counting the ones already taken
+     */
+    public int size() {
+        return internalQueue.size();
+    }
+
     public JpegImageCompressionMessage take() throws  InterruptedException {
-        return internalQueue.take();
+        takeLock.lockInterruptibly();
+        try {
+            return internalQueue.take();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * Takes the head message and, if it is smaller than maxBatchBytes, drains the following small messages
+     * as well while they fit in maxBatchBytes together, so that tiny images are handed out in batches.
+     * Bigger images and the interrupting message are always taken alone.
+     * @param maxBatchBytes batching is disabled if not positive
+     * @return at least one message
+     * @throws InterruptedException
+     */
+    public List<JpegImageCompressionMessage> takeBatch(long maxBatchBytes) throws InterruptedException {
+        List<JpegImageCompressionMessage> batch = new ArrayList<JpegImageCompressionMessage>();
+        takeLock.lockInterruptibly();
+        try {
+            JpegImageCompressionMessage head = internalQueue.take();
+            batch.add(head);
+            if(maxBatchBytes <= 0 || head.isInterruptingMessage() || head.getFileSize() >= maxBatchBytes) {
+                return batch;
+            }
+
+            long batchBytes = head.getFileSize();
+            JpegImageCompressionMessage next = internalQueue.peek();
+            while(next != null && !next.isInterruptingMessage() && batchBytes + next.getFileSize() <= maxBatchBytes) {
+                next = internalQueue.poll();
+                if(next.isInterruptingMessage() || batchBytes + next.getFileSize() > maxBatchBytes) {
+                    //a bigger message has been put meanwhile, give it back keeping its original position
+                    internalQueue.put(next);
+                    break;
+                }
+                batch.add(next);
+                batchBytes += next.getFileSize();
+                next = internalQueue.peek();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+
+        return batch;
+    }
+
+    private static Comparator<JpegImageCompressionMessage> createComparator(SchedulingPolicy policy) {
+        Comparator<JpegImageCompressionMessage> comparator =
+                Comparator.comparing(JpegImageCompressionMessage::isInterruptingMessage)
+                        .thenComparing(JpegImageCompressionMessage::isPriorityMessage, Comparator.reverseOrder());
+        if(policy == SchedulingPolicy.LARGEST_FIRST) {
+            comparator = comparator.thenComparing(JpegImageCompressionMessage::getFileSize, Comparator.reverseOrder());
+        }
+
+        return comparator.thenComparingLong(JpegImageCompressionMessage::getSequenceNumber);
     }
 }
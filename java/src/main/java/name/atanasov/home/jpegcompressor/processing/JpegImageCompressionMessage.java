@@ -8,10 +8,20 @@ import java.io.File;
 public class JpegImageCompressionMessage {
     private File jpegImageFile = null;
     private boolean interruptingMessage = false;
+    private long fileSize = 0;
+    private boolean priorityMessage = false;
+    private long sequenceNumber = 0;
+    private Runnable processedListener = null;
 
     public JpegImageCompressionMessage(File jpegImageFile, boolean interruptingMessage) {
+        this(jpegImageFile, interruptingMessage, false);
+    }
+
+    public JpegImageCompressionMessage(File jpegImageFile, boolean interruptingMessage, boolean priorityMessage) {
         this.jpegImageFile = jpegImageFile;
         this.interruptingMessage = interruptingMessage;
+        this.priorityMessage = priorityMessage;
+        this.fileSize = jpegImageFile == null ? 0 : jpegImageFile.length();
     }
 
     public File getJpegImageFile() {
@@ -21,4 +31,33 @@ public class JpegImageCompressionMessage {
     public boolean isInterruptingMessage() {
         return this.interruptingMessage;
     }
+
+    public long getFileSize() {
+        return this.fileSize;
+    }
+
+    public boolean isPriorityMessage() {
+        return this.priorityMessage;
+    }
+
+    /**
+     * @param processedListener invoked by the compressor once the image is processed, successfully or not
+     */
+    public void setProcessedListener(Runnable processedListener) {
+        this.processedListener = processedListener;
+    }
+
+    public void markProcessed() {
+        if(this.processedListener != null) {
+            this.processedListener.run();
+        }
+    }
+
+    long getSequenceNumber() {
+        return this.sequenceNumber;
+    }
+
+    void setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
  }
@@ -0,0 +1,33 @@
+package name.atanasov.home.jpegcompressor.processing;
+
+/**
+ * Defines the order in which the queued JPEG images are handed to the compression threads.
+ */
+public enum SchedulingPolicy {
+    /**
+     * Images are compressed in the order they were loaded (directory walk order).
+     */
+    FIFO,
+
+    /**
+     * Biggest images are compressed first (longest-processing-time heuristic), so the run
+     * does not end with a single thread compressing a huge image while the rest are idle.
+     * The images are ordered among the ones queued so far, so the compression starts while
+     * the folders are still being loaded.
+     */
+    LARGEST_FIRST;
+
+    public static SchedulingPolicy fromCliValue(String value) {
+        if(value == null || value.isEmpty()) {
+            return FIFO;
+        }
+
+        for(SchedulingPolicy policy : values()) {
+            if(policy.name().replace("_", "").equalsIgnoreCase(value.replace("_", ""))) {
+                return policy;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown scheduling policy: [" + value + "]!");
+    }
+}
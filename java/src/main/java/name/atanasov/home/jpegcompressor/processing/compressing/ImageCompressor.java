@@ -6,23 +6,17 @@ import name.atanasov.home.jpegcompressor.processing.JpegImageCompressionMessage;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageReader;
-import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
-import javax.imageio.metadata.IIOMetadata;
-import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
-import javax.imageio.spi.IIORegistry;
-import javax.imageio.spi.ImageReaderSpi;
-import javax.imageio.spi.ImageWriterSpi;
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
-import java.awt.*;
-import java.awt.image.BufferedImage;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Locale;
+import java.nio.file.Files;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -35,15 +29,59 @@ import java.util.logging.Logger;
  */
 public class ImageCompressor implements IStageProcessor {
     private static final Logger logger = Logger.getLogger(ImageCompressor.class.getName());
+    private static final int NO_MIN_SAVINGS = -1;
     private ImageCompressionQueue processingQueue = null;
     private long totalSize = 0;
     private int messagesConsumed = 0;
+    private int skippedAlreadyCompressed = 0;
+    private int skippedNotEnoughSavings = 0;
     private Integer numberOfThreads = 1;
     private Float compressionRatio = 0.90f;
+    private long smallFilesBatchBytes = 0;
+    private boolean skipAlreadyCompressed = false;
+    private int minSavingsPercent = NO_MIN_SAVINGS;
 
-    private static final ReentrantLock lock = new ReentrantLock();
+    private JpegCodecPool codecPool = null;
+
+    private final ReentrantLock lock = new ReentrantLock();
 
     public ImageCompressor(Integer numberOfThreads, Float compressionRatio) {
+        this(numberOfThreads, compressionRatio, null);
+    }
+
+    /**
+     * @param numberOfThreads
+     * @param compressionRatio
+     * @param smallFilesBatchBytes images smaller than this size are taken from the queue in batches
+     *                             up to this total size, so tiny images do not go through the queue one by one
+     */
+    public ImageCompressor(Integer numberOfThreads, Float compressionRatio, Long smallFilesBatchBytes) {
+        this(numberOfThreads, compressionRatio, smallFilesBatchBytes, null, null);
+    }
+
+    /**
+     * @param numberOfThreads
+     * @param compressionRatio
+     * @param smallFilesBatchBytes
+     * @param skipAlreadyCompressed images which quality, estimated from the JPEG header, is already at or
+     *                              below the compression ratio are not decoded at all
+     * @param minSavingsPercent compressed images which are not smaller than the original or not at least
+     *                          this percent smaller are not written, null disables the check
+     */
+    public ImageCompressor(Integer numberOfThreads, Float compressionRatio, Long smallFilesBatchBytes,
+                           Boolean skipAlreadyCompressed, Integer minSavingsPercent) {
+        if(skipAlreadyCompressed != null) {
+            this.skipAlreadyCompressed = skipAlreadyCompressed;
+        }
+
+        if(minSavingsPercent != null) {
+            this.minSavingsPercent = minSavingsPercent;
+        }
+
+        if(smallFilesBatchBytes != null) {
+            this.smallFilesBatchBytes = smallFilesBatchBytes;
+        }
+
         if(numberOfThreads != null) {
            this.numberOfThreads = numberOfThreads;
         }
@@ -51,6 +89,8 @@ public class ImageCompressor implements IStageProcessor {
         if(compressionRatio != null) {
             this.compressionRatio = compressionRatio;
         }
+
+        this.codecPool = new JpegCodecPool(this.numberOfThreads);
     }
 
     @Override
@@ -62,58 +102,97 @@ public class ImageCompressor implements IStageProcessor {
     public void process() {
         lock.lock();
         this.messagesConsumed = 0;
+        this.totalSize = 0;
+        this.skippedAlreadyCompressed = 0;
+        this.skippedNotEnoughSavings = 0;
         lock.unlock();
 
+        //every thread takes the next image from the shared queue as soon as it gets idle,
+        //so the order of the queue is kept and no thread waits while there is work left
         ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
         final long before = System.currentTimeMillis();
-        while(true) {
-            try {
-                JpegImageCompressionMessage message = processingQueue.take();
-                if(message.isInterruptingMessage()) {
-                    break;
-                }
-
-                executor.submit(() -> {
-                   processMessage(message);
-                });
-            } catch(InterruptedException ie) {
-                ie.printStackTrace();
-            }
+        for(int i = 0; i < numberOfThreads; i++) {
+            executor.submit(() -> {
+                consumeMessages();
+            });
         }
 
         try {
             executor.shutdown();
             executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            //removes the interrupting message given back by the last thread
+            processingQueue.take();
             final long after = System.currentTimeMillis();
             logger.info("Total number of processed image: [" + this.messagesConsumed + "].");
             logger.info("Images processed for: [" + (after - before) + "] ms");
             logger.info("Total size of processed files: [" + (totalSize/1024/1024) + "] MB");
+            if(this.skipAlreadyCompressed) {
+                logger.info("Skipped images with quality already at or below the target: [" +
+                            this.skippedAlreadyCompressed + "].");
+            }
+            if(this.minSavingsPercent == 0) {
+                logger.info("Discarded images not smaller than the original: [" +
+                            this.skippedNotEnoughSavings + "].");
+            } else if(this.minSavingsPercent > 0) {
+                logger.info("Discarded images smaller by less than " + this.minSavingsPercent + "%: [" +
+                            this.skippedNotEnoughSavings + "].");
+            }
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
             if(!executor.isShutdown()) {
                 executor.shutdownNow();
             }
+            codecPool.dispose();
+        }
+    }
+
+    private void consumeMessages() {
+        while(true) {
+            try {
+                List<JpegImageCompressionMessage> batch = processingQueue.takeBatch(this.smallFilesBatchBytes);
+                JpegImageCompressionMessage first = batch.get(0);
+                if(first.isInterruptingMessage()) {
+                    //give the interrupting message back, so the rest of the threads stop as well
+                    processingQueue.put(first);
+                    break;
+                }
+
+                for(JpegImageCompressionMessage message : batch) {
+                    try {
+                        processMessage(message);
+                    } finally {
+                        message.markProcessed();
+                    }
+                }
+            } catch(InterruptedException ie) {
+                ie.printStackTrace();
+                break;
+            }
         }
     }
 
     private void processMessage(JpegImageCompressionMessage message) {
         logger.fine("Processing file: " + message.getJpegImageFile().getName());
 
+        if(this.skipAlreadyCompressed && isAlreadyCompressed(message.getJpegImageFile())) {
+            lock.lock();
+            this.skippedAlreadyCompressed += 1;
+            lock.unlock();
+
+            return;
+        }
+
         ImageReader reader = null;
         ImageInputStream iis = null;
-        BufferedImage srcImage = null;
-        IIOMetadata srcImageMetadata = null;
+        IIOImage srcImage = null;
         try {
             final long before = System.currentTimeMillis();
             iis = new FileImageInputStream(message.getJpegImageFile());
 
-            reader = getJpegImageReader();
-
-            reader.setInput(iis);
+            reader = codecPool.borrowReader();
 
-            srcImage = reader.read(0);
-            srcImageMetadata = reader.getImageMetadata(0);
+            srcImage = JpegImageCodec.read(reader, iis);
             final long after = System.currentTimeMillis();
 
             logger.fine("Successfully read JPEG image: " + message.getJpegImageFile().getName() +
@@ -135,12 +214,13 @@ public class ImageCompressor implements IStageProcessor {
                 }
             }
             if(reader != null) {
-                reader.dispose();
+                codecPool.releaseReader(reader);
             }
         }
 
         ImageWriter writer = null;
         ImageOutputStream ios = null;
+        ByteArrayOutputStream compressedImage = null;
         File destinationImageFile = null;
         try {
             final long before = System.currentTimeMillis();
@@ -154,22 +234,34 @@ public class ImageCompressor implements IStageProcessor {
                                                     .append(originalFileName.substring(dotPos))
                                                     .toString();
             destinationImageFile = new File(destinationImageFileName);
-            ios = new FileImageOutputStream(destinationImageFile);
-            writer = getJpegImageWriter();
-
-            writer.setOutput(ios);
-            JPEGImageWriteParam compressionParams = new JPEGImageWriteParam(Locale.getDefault());
-            compressionParams.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            compressionParams.setCompressionQuality(this.compressionRatio);
-            compressionParams.setOptimizeHuffmanTables(true);
-
-            final int scaledImageWidth = Math.round(srcImage.getWidth() * this.compressionRatio);
-            final int scaledImageHeight = Math.round(srcImage.getHeight() * this.compressionRatio);
-            Image scaledImage = srcImage.getScaledInstance(scaledImageWidth, scaledImageHeight, Image.SCALE_SMOOTH);
-            BufferedImage newImage = new BufferedImage(scaledImage.getWidth(null), scaledImage.getHeight(null),
-                                            BufferedImage.TYPE_INT_RGB);
-            newImage.getGraphics().drawImage(scaledImage, 0, 0, null);
-            writer.write(srcImageMetadata, new IIOImage(newImage, null, srcImageMetadata), compressionParams);
+            if(this.minSavingsPercent != NO_MIN_SAVINGS) {
+                //compressed in memory, so an image without enough savings is never written
+                compressedImage = new ByteArrayOutputStream();
+                ios = new MemoryCacheImageOutputStream(compressedImage);
+            } else {
+                ios = new FileImageOutputStream(destinationImageFile);
+            }
+            writer = codecPool.borrowWriter();
+
+            JpegImageCodec.write(writer, srcImage, ios, this.compressionRatio);
+
+            if(compressedImage != null) {
+                ios.flush();
+                final long originalSize = message.getJpegImageFile().length();
+                if(compressedImage.size() >= originalSize ||
+                        compressedImage.size() * 100L > originalSize * (100 - this.minSavingsPercent)) {
+                    logger.fine("Compressed image: " + message.getJpegImageFile().getName() + " has [" +
+                                compressedImage.size() + "] bytes out of [" + originalSize + "]. Discarded!");
+                    //an output left by a previous run does not match this run anymore
+                    Files.deleteIfExists(destinationImageFile.toPath());
+                    lock.lock();
+                    this.skippedNotEnoughSavings += 1;
+                    lock.unlock();
+
+                    return;
+                }
+                Files.write(destinationImageFile.toPath(), compressedImage.toByteArray());
+            }
 
             final long after = System.currentTimeMillis();
             logger.fine("Successfully compressed image: " + message.getJpegImageFile().getName() +
@@ -194,7 +286,7 @@ public class ImageCompressor implements IStageProcessor {
                 }
             }
             if(writer != null) {
-                writer.dispose();
+                codecPool.releaseWriter(writer);
             }
         }
 
@@ -205,38 +297,20 @@ public class ImageCompressor implements IStageProcessor {
         logger.fine("Successfully comrpessed image: " + message.getJpegImageFile().getName());
     }
 
-    private ImageReader getJpegImageReader() throws IOException {
-        IIORegistry serviceRegistry = IIORegistry.getDefaultInstance();
-        Iterator<ImageReaderSpi> imageReaders = serviceRegistry.getServiceProviders(ImageReaderSpi.class, f -> {
-            if(f instanceof com.sun.imageio.plugins.jpeg.JPEGImageReaderSpi) {
+    private boolean isAlreadyCompressed(File jpegImageFile) {
+        try {
+            final int quality = JpegQualityEstimator.estimateQuality(jpegImageFile);
+            if(quality != JpegQualityEstimator.UNKNOWN_QUALITY && quality <= Math.round(this.compressionRatio * 100)) {
+                logger.fine("Image: " + jpegImageFile.getName() + " has estimated quality [" + quality +
+                            "]. Skipped!");
                 return true;
             }
-
-            return false;
-        }, false);
-
-        if(imageReaders.hasNext()) {
-            ImageReaderSpi imageReaderSpi = imageReaders.next();
-            return imageReaderSpi.createReaderInstance();
-        }
-        return null;
-    }
-
-    private ImageWriter getJpegImageWriter() throws IOException {
-        IIORegistry serviceRegistry = IIORegistry.getDefaultInstance();
-        Iterator<ImageWriterSpi> imageWriters = serviceRegistry.getServiceProviders(ImageWriterSpi.class,
-                filter -> {
-                    if(filter instanceof com.sun.imageio.plugins.jpeg.JPEGImageWriterSpi) {
-                        return true;
-                    }
-                    return false;
-                }, false);
-
-        if(imageWriters.hasNext()) {
-            return imageWriters.next().createWriterInstance();
+        } catch (IOException e) {
+            //left to the full decoding to report
+            logger.log(Level.FINE, "Unable to estimate quality of image: " + jpegImageFile.getName(), e);
         }
 
-        return null;
+        return false;
     }
 
 }
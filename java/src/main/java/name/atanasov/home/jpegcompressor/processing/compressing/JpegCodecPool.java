@@ -0,0 +1,60 @@
+package name.atanasov.home.jpegcompressor.processing.compressing;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps idle JPEG readers and writers for reuse, instead of looking up the service provider
+ * and creating new ones for every image.
+ */
+public class JpegCodecPool {
+    private final BlockingQueue<ImageReader> readers;
+    private final BlockingQueue<ImageWriter> writers;
+
+    /**
+     * @param capacity maximal number of idle readers and writers kept, usually the number of threads
+     */
+    public JpegCodecPool(int capacity) {
+        this.readers = new ArrayBlockingQueue<ImageReader>(capacity);
+        this.writers = new ArrayBlockingQueue<ImageWriter>(capacity);
+    }
+
+    public ImageReader borrowReader() throws IOException {
+        ImageReader reader = readers.poll();
+        return reader != null ? reader : JpegImageCodec.createJpegImageReader();
+    }
+
+    public void releaseReader(ImageReader reader) {
+        reader.reset();
+        if(!readers.offer(reader)) {
+            reader.dispose();
+        }
+    }
+
+    public ImageWriter borrowWriter() throws IOException {
+        ImageWriter writer = writers.poll();
+        return writer != null ? writer : JpegImageCodec.createJpegImageWriter();
+    }
+
+    public void releaseWriter(ImageWriter writer) {
+        writer.reset();
+        if(!writers.offer(writer)) {
+            writer.dispose();
+        }
+    }
+
+    public void dispose() {
+        ImageReader reader = null;
+        while((reader = readers.poll()) != null) {
+            reader.dispose();
+        }
+
+        ImageWriter writer = null;
+        while((writer = writers.poll()) != null) {
+            writer.dispose();
+        }
+    }
+}
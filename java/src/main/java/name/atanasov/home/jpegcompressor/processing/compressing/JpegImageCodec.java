@@ -0,0 +1,87 @@
+package name.atanasov.home.jpegcompressor.processing.compressing;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Reads and compresses JPEG images from/to any image stream, so the same code is used
+ * for files and for in-memory images.
+ */
+public final class JpegImageCodec {
+
+    private JpegImageCodec() {
+
+    }
+
+    /**
+     * Reads the first image of the stream together with its metadata.
+     * @param reader
+     * @param iis
+     * @return
+     * @throws IOException
+     */
+    public static IIOImage read(ImageReader reader, ImageInputStream iis) throws IOException {
+        reader.setInput(iis);
+
+        BufferedImage srcImage = reader.read(0);
+        IIOMetadata srcImageMetadata = reader.getImageMetadata(0);
+        return new IIOImage(srcImage, null, srcImageMetadata);
+    }
+
+    /**
+     * Scales the image by the compression ratio and writes it with the same ratio as JPEG quality.
+     * @param writer
+     * @param srcImage
+     * @param ios
+     * @param compressionRatio
+     * @throws IOException
+     */
+    public static void write(ImageWriter writer, IIOImage srcImage, ImageOutputStream ios, float compressionRatio)
+            throws IOException {
+        writer.setOutput(ios);
+        JPEGImageWriteParam compressionParams = new JPEGImageWriteParam(Locale.getDefault());
+        compressionParams.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        compressionParams.setCompressionQuality(compressionRatio);
+        compressionParams.setOptimizeHuffmanTables(true);
+
+        final BufferedImage image = (BufferedImage) srcImage.getRenderedImage();
+        final IIOMetadata srcImageMetadata = srcImage.getMetadata();
+        final int scaledImageWidth = Math.round(image.getWidth() * compressionRatio);
+        final int scaledImageHeight = Math.round(image.getHeight() * compressionRatio);
+        Image scaledImage = image.getScaledInstance(scaledImageWidth, scaledImageHeight, Image.SCALE_SMOOTH);
+        BufferedImage newImage = new BufferedImage(scaledImage.getWidth(null), scaledImage.getHeight(null),
+                                        BufferedImage.TYPE_INT_RGB);
+        newImage.getGraphics().drawImage(scaledImage, 0, 0, null);
+        writer.write(srcImageMetadata, new IIOImage(newImage, null, srcImageMetadata), compressionParams);
+    }
+
+    public static ImageReader createJpegImageReader() throws IOException {
+        Iterator<ImageReader> imageReaders = ImageIO.getImageReadersByFormatName("jpeg");
+        if(imageReaders.hasNext()) {
+            return imageReaders.next();
+        }
+
+        throw new IOException("No JPEG image reader is available!");
+    }
+
+    public static ImageWriter createJpegImageWriter() throws IOException {
+        Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName("jpeg");
+        if(imageWriters.hasNext()) {
+            return imageWriters.next();
+        }
+
+        throw new IOException("No JPEG image writer is available!");
+    }
+}
@@ -0,0 +1,143 @@
+package name.atanasov.home.jpegcompressor.processing.compressing;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Estimates the quality a JPEG image was saved with, by comparing its luminance quantization table
+ * with the standard IJG one. Only the header (up to the start of scan) is read, the image is not decoded.
+ */
+public final class JpegQualityEstimator {
+    public static final int UNKNOWN_QUALITY = -1;
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_DQT = 0xDB;
+    private static final int MARKER_TEM = 0x01;
+    private static final int MARKER_RST0 = 0xD0;
+    private static final int MARKER_RST7 = 0xD7;
+
+    private static final int[] STANDARD_LUMINANCE_TABLE = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+
+    /**
+     * Natural (row by row) position of every coefficient of a table stored in zigzag order.
+     */
+    private static final int[] ZIGZAG_TO_NATURAL = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private JpegQualityEstimator() {
+
+    }
+
+    /**
+     * @param jpegImageFile
+     * @return estimated quality in the [1, 100] range or UNKNOWN_QUALITY if the file has no
+     *         luminance quantization table
+     * @throws IOException
+     */
+    public static int estimateQuality(File jpegImageFile) throws IOException {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(jpegImageFile))) {
+            return estimateQuality(is);
+        }
+    }
+
+    public static int estimateQuality(InputStream jpegImage) throws IOException {
+        int[] luminanceTable = readLuminanceTable(new DataInputStream(jpegImage));
+        if(luminanceTable == null) {
+            return UNKNOWN_QUALITY;
+        }
+
+        //the IJG encoder scales the standard table by a factor derived from the quality and clamps
+        //the values to [1, 255], so the quality is recovered from the average factor of the values
+        //which were not clamped
+        long tableSum = 0;
+        long standardTableSum = 0;
+        for(int i = 0; i < luminanceTable.length; i++) {
+            if(luminanceTable[i] > 1 && luminanceTable[i] < 255) {
+                tableSum += luminanceTable[i];
+                standardTableSum += STANDARD_LUMINANCE_TABLE[ZIGZAG_TO_NATURAL[i]];
+            }
+        }
+        if(standardTableSum == 0) {
+            //every value is clamped, it is either the lowest or the highest quality
+            return luminanceTable[0] <= 1 ? 100 : 1;
+        }
+
+        final double scale = tableSum * 100.0 / standardTableSum;
+        final double quality = scale <= 100 ? (200 - scale) / 2 : 5000 / scale;
+        return (int) Math.max(1, Math.min(100, Math.round(quality)));
+    }
+
+    private static int[] readLuminanceTable(DataInputStream dis) throws IOException {
+        try {
+            if(dis.readUnsignedByte() != 0xFF || dis.readUnsignedByte() != MARKER_SOI) {
+                throw new IOException("Not a JPEG file!");
+            }
+
+            while(true) {
+                int marker = dis.readUnsignedByte();
+                if(marker != 0xFF) {
+                    throw new IOException("Corrupted JPEG header!");
+                }
+                while(marker == 0xFF) {
+                    marker = dis.readUnsignedByte();
+                }
+
+                if(marker == MARKER_SOS || marker == MARKER_EOI) {
+                    return null;
+                }
+                if(marker == MARKER_TEM || (marker >= MARKER_RST0 && marker <= MARKER_RST7)) {
+                    continue;
+                }
+
+                int remaining = dis.readUnsignedShort() - 2;
+                if(marker != MARKER_DQT) {
+                    if(dis.skipBytes(remaining) < remaining) {
+                        return null;
+                    }
+                    continue;
+                }
+
+                while(remaining > 0) {
+                    final int tableInfo = dis.readUnsignedByte();
+                    final boolean sixteenBitPrecision = (tableInfo >> 4) != 0;
+                    final int tableId = tableInfo & 0x0F;
+                    int[] table = new int[64];
+                    for(int i = 0; i < table.length; i++) {
+                        table[i] = sixteenBitPrecision ? dis.readUnsignedShort() : dis.readUnsignedByte();
+                    }
+                    remaining -= 1 + table.length * (sixteenBitPrecision ? 2 : 1);
+
+                    if(tableId == 0) {
+                        return table;
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package name.atanasov.home.jpegcompressor.processing.distributed;
+
+import name.atanasov.home.jpegcompressor.processing.IStageProcessor;
+import name.atanasov.home.jpegcompressor.processing.ImageCompressionQueue;
+import name.atanasov.home.jpegcompressor.processing.JpegImageCompressionMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Leases chunks of images from the shared work directory and feeds them to a single compressor running
+ * for the whole life of the worker, until the run it has joined is finished. The next chunk is leased
+ * while the compression threads still have queued images, so they never wait for a chunk to complete.
+ * A heartbeat is sent as often as the lease timeout of the run requires, so the coordinator can
+ * reassign the leases of a dead worker.
+ */
+public class LeaseWorker implements IStageProcessor {
+    private static final Logger logger = Logger.getLogger(LeaseWorker.class.getName());
+    private static final long POLLING_INTERVAL_MILLIS = 1000;
+    private static final long PREFETCH_INTERVAL_MILLIS = 100;
+
+    private ImageCompressionQueue processingQueue = null;
+    private WorkDirectory workDirectory = null;
+    private IStageProcessor compressor = null;
+    private String workerId = null;
+    private int prefetchSize = 1;
+    private final AtomicInteger chunksCompleted = new AtomicInteger();
+
+    /**
+     * @param workDirectory
+     * @param workerId unique name of the worker, has to be a valid file name
+     * @param compressor compresses the images of the leased chunks
+     * @param prefetchSize a new chunk is leased once no more than this number of images are queued,
+     *                     usually the number of compression threads
+     */
+    public LeaseWorker(WorkDirectory workDirectory, String workerId, IStageProcessor compressor, int prefetchSize) {
+        this.workDirectory = workDirectory;
+        this.workerId = workerId;
+        this.compressor = compressor;
+        this.prefetchSize = prefetchSize;
+    }
+
+    @Override
+    public void setMessageQueue(ImageCompressionQueue queue) {
+        this.processingQueue = queue;
+        this.compressor.setMessageQueue(queue);
+    }
+
+    @Override
+    public void process() {
+        ExecutorService compressorExecutor = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor();
+        Future<?> compression = compressorExecutor.submit(() -> {
+            compressor.process();
+        });
+        try {
+            workDirectory.prepare();
+
+            WorkDirectory.Run run = null;
+            do {
+                run = waitForActiveRun();
+                final int released = workDirectory.releaseLeases(run.getId(), workerId);
+                if(released > 0) {
+                    logger.warning("Worker: [" + workerId + "] released [" + released + "] chunks leased " +
+                                    "before it was restarted.");
+                }
+                final long heartbeatIntervalMillis = Math.max(1, run.getLeaseTimeoutMillis() / 3);
+                ScheduledFuture<?> heartbeat = heartbeatExecutor.scheduleAtFixedRate(() -> {
+                    try {
+                        workDirectory.heartbeat(workerId);
+                    } catch (IOException e) {
+                        logger.warning("Unable to send heartbeat. Caused by: " + e.getMessage());
+                    }
+                }, 0, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+
+                try {
+                    serveRun(run);
+                } finally {
+                    heartbeat.cancel(false);
+                }
+                //a run replaced by a new coordinator before it has finished is left for the new one
+            } while(!workDirectory.isFinished(run.getId()));
+        } catch (IOException e) {
+            logger.severe("Unable to process the leased chunks. Caused by: " + e.getMessage());
+            logger.log(Level.FINE, "", e);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            heartbeatExecutor.shutdownNow();
+            stopCompressor(compressorExecutor, compression);
+        }
+
+        logger.info("Worker: [" + workerId + "] completed [" + chunksCompleted.get() + "] chunks.");
+    }
+
+    /**
+     * Waits for a coordinator to start a run. A run finished before this worker was started is not joined.
+     */
+    private WorkDirectory.Run waitForActiveRun() throws IOException, InterruptedException {
+        logger.info("Worker: [" + workerId + "] is waiting for a run.");
+        while(true) {
+            WorkDirectory.Run run = workDirectory.getCurrentRun();
+            if(run != null && workDirectory.isRunActive(run.getId())) {
+                logger.info("Worker: [" + workerId + "] joined run: [" + run.getId() + "].");
+                return run;
+            }
+            Thread.sleep(POLLING_INTERVAL_MILLIS);
+        }
+    }
+
+    private void serveRun(WorkDirectory.Run run) throws IOException, InterruptedException {
+        while(workDirectory.isRunActive(run.getId())) {
+            if(processingQueue.size() > prefetchSize) {
+                Thread.sleep(PREFETCH_INTERVAL_MILLIS);
+                continue;
+            }
+
+            File lease = workDirectory.claimChunk(run.getId(), workerId);
+            if(lease == null) {
+                Thread.sleep(POLLING_INTERVAL_MILLIS);
+                continue;
+            }
+
+            logger.info("Worker: [" + workerId + "] leased chunk: " + lease.getName());
+            queueChunk(lease);
+        }
+    }
+
+    private void queueChunk(File lease) throws IOException, InterruptedException {
+        List<File> files = workDirectory.readChunk(lease);
+        if(files.isEmpty()) {
+            completeLease(lease);
+            return;
+        }
+
+        final AtomicInteger remainingImages = new AtomicInteger(files.size());
+        for(File file : files) {
+            JpegImageCompressionMessage message = new JpegImageCompressionMessage(file, false);
+            message.setProcessedListener(() -> {
+                if(remainingImages.decrementAndGet() == 0) {
+                    completeLease(lease);
+                }
+            });
+            processingQueue.put(message);
+        }
+    }
+
+    private void completeLease(File lease) {
+        if(workDirectory.completeChunk(lease)) {
+            chunksCompleted.incrementAndGet();
+        } else {
+            logger.warning("Lease: " + lease.getName() + " has expired before it was completed!");
+        }
+    }
+
+    private void stopCompressor(ExecutorService compressorExecutor, Future<?> compression) {
+        try {
+            processingQueue.put(new JpegImageCompressionMessage(null, true));
+            compression.get();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Image compression failed!", e);
+        } finally {
+            compressorExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package name.atanasov.home.jpegcompressor.processing.distributed;
+
+import name.atanasov.home.jpegcompressor.processing.IStageProcessor;
+import name.atanasov.home.jpegcompressor.processing.ImageCompressionQueue;
+import name.atanasov.home.jpegcompressor.processing.JpegImageCompressionMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Splits the images loaded by the FilesLoader into chunks published in the shared work directory
+ * and watches the leases of the workers until all the chunks are completed.
+ * The lease timeout is published with the run, so all the workers send heartbeats often enough for it.
+ */
+public class WorkCoordinator implements IStageProcessor {
+    private static final Logger logger = Logger.getLogger(WorkCoordinator.class.getName());
+    private static final long POLLING_INTERVAL_MILLIS = 1000;
+    private static final long MIN_LEASE_TIMEOUT_MILLIS = 3 * POLLING_INTERVAL_MILLIS;
+
+    private ImageCompressionQueue processingQueue = null;
+    private WorkDirectory workDirectory = null;
+    private WorkDirectory.Run run = null;
+    private int chunkSize = 50;
+    private long leaseTimeoutMillis = 30000;
+
+    public WorkCoordinator(WorkDirectory workDirectory, Integer chunkSize, Long leaseTimeoutMillis) {
+        this.workDirectory = workDirectory;
+
+        if(chunkSize != null) {
+            if(chunkSize < 1) {
+                throw new IllegalArgumentException("Chunk size: [" + chunkSize + "] has to be positive!");
+            }
+            this.chunkSize = chunkSize;
+        }
+
+        if(leaseTimeoutMillis != null) {
+            if(leaseTimeoutMillis < MIN_LEASE_TIMEOUT_MILLIS) {
+                throw new IllegalArgumentException("Lease timeout: [" + leaseTimeoutMillis + "] ms has to be at " +
+                                                    "least [" + MIN_LEASE_TIMEOUT_MILLIS + "] ms!");
+            }
+            this.leaseTimeoutMillis = leaseTimeoutMillis;
+        }
+    }
+
+    /**
+     * Starts a new run in the work directory. Has to be invoked before process().
+     * @throws IOException
+     */
+    public void prepareRun() throws IOException {
+        this.run = workDirectory.startRun(this.leaseTimeoutMillis);
+        logger.info("Started run: [" + run.getId() + "] in the work directory.");
+    }
+
+    @Override
+    public void setMessageQueue(ImageCompressionQueue queue) {
+        this.processingQueue = queue;
+    }
+
+    @Override
+    public void process() {
+        if(this.run == null) {
+            throw new IllegalStateException("Run is not prepared! Please, invoke prepareRun() first!");
+        }
+
+        final long before = System.currentTimeMillis();
+        final String runId = run.getId();
+        int chunksPublished = 0;
+        int chunksReassigned = 0;
+        try {
+            List<File> chunk = new ArrayList<File>(chunkSize);
+            while(true) {
+                JpegImageCompressionMessage message = processingQueue.take();
+                if(!message.isInterruptingMessage()) {
+                    chunk.add(message.getJpegImageFile());
+                }
+
+                if(chunk.size() >= chunkSize || (message.isInterruptingMessage() && !chunk.isEmpty())) {
+                    chunksPublished += 1;
+                    workDirectory.publishChunk(runId, chunksPublished, chunk);
+                    logger.fine("Published chunk: [" + chunksPublished + "] with [" + chunk.size() + "] images.");
+                    chunk = new ArrayList<File>(chunkSize);
+                }
+
+                if(message.isInterruptingMessage()) {
+                    break;
+                }
+            }
+            logger.info("Published [" + chunksPublished + "] chunks. Waiting for the workers to complete them.");
+
+            while(workDirectory.hasUnfinishedChunks(runId)) {
+                chunksReassigned += workDirectory.reclaimExpiredLeases(runId, leaseTimeoutMillis);
+                Thread.sleep(POLLING_INTERVAL_MILLIS);
+            }
+            workDirectory.markFinished(runId);
+        } catch (IOException e) {
+            logger.severe("Unable to coordinate the workers. Caused by: " + e.getMessage());
+            logger.log(Level.FINE, "", e);
+            return;
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        final long after = System.currentTimeMillis();
+        logger.info("Total number of completed chunks: [" + workDirectory.countCompletedChunks(runId) + "].");
+        logger.info("Total number of reassigned chunks: [" + chunksReassigned + "].");
+        logger.info("Chunks processed for: [" + (after - before) + "] ms");
+    }
+}
@@ -0,0 +1,354 @@
+package name.atanasov.home.jpegcompressor.processing.distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Shared directory used to coordinate several JPEG compressor processes, possibly on different machines.
+ *
+ * Layout:
+ *  RUN         id and lease timeout of the current run, written by the coordinator
+ *  FINISHED    id of the last finished run
+ *  pending/    chunks of work waiting for a worker, named chunk-runId-NNNNNN
+ *  leased/     chunks claimed by a worker, named chunk-runId-NNNNNN@workerId
+ *  done/       chunks completed by a worker
+ *  heartbeats/ one file per worker, rewritten periodically while the worker is alive
+ *
+ * Every state change of a chunk is a single atomic rename, so only one process can win a lease.
+ * The FINISHED marker contains the id of the run it belongs to, so a marker left by a previous run is ignored.
+ * Heartbeats are compared only with their previous content and timed with the clock of the coordinator,
+ * so the clocks of the machines do not have to be in sync.
+ */
+public class WorkDirectory {
+    private static final Logger logger = Logger.getLogger(WorkDirectory.class.getName());
+
+    private static final String PENDING_FOLDER = "pending";
+    private static final String LEASED_FOLDER = "leased";
+    private static final String DONE_FOLDER = "done";
+    private static final String HEARTBEATS_FOLDER = "heartbeats";
+    private static final String RUN_FILE = "RUN";
+    private static final String FINISHED_MARKER = "FINISHED";
+    private static final String LEASE_OWNER_SEPARATOR = "@";
+    private static final String CHUNK_PREFIX = "chunk-";
+
+    private final Path root;
+    private final Path pending;
+    private final Path leased;
+    private final Path done;
+    private final Path heartbeats;
+
+    private final Map<String, HeartbeatObservation> heartbeatObservations = new HashMap<String, HeartbeatObservation>();
+
+    /**
+     * Run of the coordinator the workers join.
+     */
+    public static class Run {
+        private final String id;
+        private final long leaseTimeoutMillis;
+
+        public Run(String id, long leaseTimeoutMillis) {
+            this.id = id;
+            this.leaseTimeoutMillis = leaseTimeoutMillis;
+        }
+
+        public String getId() {
+            return this.id;
+        }
+
+        public long getLeaseTimeoutMillis() {
+            return this.leaseTimeoutMillis;
+        }
+    }
+
+    private static class HeartbeatObservation {
+        private String content;
+        private long observedAtNanos;
+
+        private HeartbeatObservation(String content, long observedAtNanos) {
+            this.content = content;
+            this.observedAtNanos = observedAtNanos;
+        }
+    }
+
+    public WorkDirectory(File rootFolder) {
+        this.root = rootFolder.toPath();
+        this.pending = root.resolve(PENDING_FOLDER);
+        this.leased = root.resolve(LEASED_FOLDER);
+        this.done = root.resolve(DONE_FOLDER);
+        this.heartbeats = root.resolve(HEARTBEATS_FOLDER);
+    }
+
+    /**
+     * Creates the directory layout. Invoked by every role, so the start order does not matter.
+     * @throws IOException
+     */
+    public void prepare() throws IOException {
+        Files.createDirectories(pending);
+        Files.createDirectories(leased);
+        Files.createDirectories(done);
+        Files.createDirectories(heartbeats);
+    }
+
+    /**
+     * Starts a new run, discarding everything left by the previous one. Only the coordinator starts runs.
+     * @param leaseTimeoutMillis time without heartbeat change after which the leases of a worker expire
+     * @return the new run
+     * @throws IOException
+     */
+    public Run startRun(long leaseTimeoutMillis) throws IOException {
+        prepare();
+        for(Path folder : Arrays.asList(pending, leased, done, heartbeats)) {
+            for(File file : listFiles(folder)) {
+                if((folder == pending || folder == leased) && file.getName().startsWith(CHUNK_PREFIX)) {
+                    logger.warning("Discarding unfinished chunk: " + file.getName() + " of a previous run!");
+                }
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        heartbeatObservations.clear();
+
+        Run run = new Run(UUID.randomUUID().toString().substring(0, 8), leaseTimeoutMillis);
+        List<String> lines = new ArrayList<String>(2);
+        lines.add(run.getId());
+        lines.add(Long.toString(run.getLeaseTimeoutMillis()));
+        writeAtomically(RUN_FILE, lines);
+
+        return run;
+    }
+
+    /**
+     * @return the current run or null if no coordinator has started a run yet
+     * @throws IOException
+     */
+    public Run getCurrentRun() throws IOException {
+        try {
+            List<String> lines = Files.readAllLines(root.resolve(RUN_FILE), StandardCharsets.UTF_8);
+            if(lines.size() < 2) {
+                return null;
+            }
+            return new Run(lines.get(0), Long.parseLong(lines.get(1)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param runId
+     * @return true if the run is still the current one and it is not finished
+     * @throws IOException
+     */
+    public boolean isRunActive(String runId) throws IOException {
+        Run currentRun = getCurrentRun();
+        return currentRun != null && currentRun.getId().equals(runId) && !isFinished(runId);
+    }
+
+    public void publishChunk(String runId, int chunkNumber, List<File> files) throws IOException {
+        List<String> lines = new ArrayList<String>(files.size());
+        for(File file : files) {
+            lines.add(file.getAbsolutePath());
+        }
+
+        //written aside and renamed, so a worker never sees a partially written chunk
+        final String chunkName = String.format("%s%s-%06d", CHUNK_PREFIX, runId, chunkNumber);
+        Path temporary = root.resolve("." + chunkName + ".tmp");
+        Files.write(temporary, lines, StandardCharsets.UTF_8);
+        Files.move(temporary, pending.resolve(chunkName), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Tries to lease one of the pending chunks of the run.
+     * @param runId
+     * @param workerId
+     * @return the leased chunk or null if there is no chunk available
+     */
+    public File claimChunk(String runId, String workerId) {
+        File[] chunks = listChunks(pending, runId);
+        Arrays.sort(chunks);
+        for(File chunk : chunks) {
+            Path lease = leased.resolve(chunk.getName() + LEASE_OWNER_SEPARATOR + workerId);
+            try {
+                Files.move(chunk.toPath(), lease, StandardCopyOption.ATOMIC_MOVE);
+                return lease.toFile();
+            } catch (NoSuchFileException e) {
+                //another worker has claimed it first
+            } catch (IOException e) {
+                logger.warning("Unable to claim chunk: " + chunk.getName() + ". Caused by: " + e.getMessage());
+            }
+        }
+
+        return null;
+    }
+
+    public List<File> readChunk(File chunk) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for(String line : Files.readAllLines(chunk.toPath(), StandardCharsets.UTF_8)) {
+            if(!line.isEmpty()) {
+                files.add(new File(line));
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Moves back to pending the chunks of the run still leased by the worker. Invoked when a worker joins
+     * a run, so the chunks leased before a restart under the same id are not kept alive by its new heartbeats.
+     * @param runId
+     * @param workerId
+     * @return number of chunks released
+     */
+    public int releaseLeases(String runId, String workerId) {
+        int released = 0;
+        for(File lease : listChunks(leased, runId)) {
+            if(!getLeaseOwner(lease).equals(workerId)) {
+                continue;
+            }
+
+            try {
+                Files.move(lease.toPath(), pending.resolve(getChunkName(lease)), StandardCopyOption.ATOMIC_MOVE);
+                released += 1;
+            } catch (IOException e) {
+                //reassigned by the coordinator meanwhile
+            }
+        }
+
+        return released;
+    }
+
+    /**
+     * @param lease
+     * @return false if the lease was taken away from the worker in the meantime
+     */
+    public boolean completeChunk(File lease) {
+        try {
+            Files.move(lease.toPath(), done.resolve(getChunkName(lease)), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Changes the content of the heartbeat file of the worker. Only the change matters, not the content.
+     * @param workerId
+     * @throws IOException
+     */
+    public void heartbeat(String workerId) throws IOException {
+        Files.write(heartbeats.resolve(workerId),
+                    Long.toString(System.nanoTime()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Moves back to pending the chunks which owners' heartbeat has not changed for more than leaseTimeout,
+     * measured with the clock of this process since the first time the owner was observed.
+     * @param runId
+     * @param leaseTimeoutMillis
+     * @return number of chunks reassigned
+     */
+    public int reclaimExpiredLeases(String runId, long leaseTimeoutMillis) {
+        int reclaimed = 0;
+        final long now = System.nanoTime();
+        for(File lease : listChunks(leased, runId)) {
+            final String workerId = getLeaseOwner(lease);
+            if(TimeUnit.NANOSECONDS.toMillis(now - observeHeartbeat(workerId, now)) <= leaseTimeoutMillis) {
+                continue;
+            }
+
+            try {
+                Files.move(lease.toPath(), pending.resolve(getChunkName(lease)), StandardCopyOption.ATOMIC_MOVE);
+                logger.warning("Worker: [" + workerId + "] is not responding. Chunk: " + getChunkName(lease) +
+                                " is reassigned!");
+                reclaimed += 1;
+            } catch (IOException e) {
+                //the worker has completed the chunk meanwhile
+            }
+        }
+
+        return reclaimed;
+    }
+
+    public boolean hasUnfinishedChunks(String runId) {
+        return listChunks(pending, runId).length > 0 || listChunks(leased, runId).length > 0;
+    }
+
+    public int countCompletedChunks(String runId) {
+        return listChunks(done, runId).length;
+    }
+
+    public void markFinished(String runId) throws IOException {
+        writeAtomically(FINISHED_MARKER, Arrays.asList(runId));
+    }
+
+    public boolean isFinished(String runId) throws IOException {
+        return isMarked(FINISHED_MARKER, runId);
+    }
+
+    /**
+     * @return the last time, in nanos of this process, the heartbeat of the worker was seen changing
+     */
+    private long observeHeartbeat(String workerId, long now) {
+        String content = null;
+        try {
+            content = new String(Files.readAllBytes(heartbeats.resolve(workerId)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            //no heartbeat yet
+        }
+
+        HeartbeatObservation observation = heartbeatObservations.get(workerId);
+        if(observation == null) {
+            observation = new HeartbeatObservation(content, now);
+            heartbeatObservations.put(workerId, observation);
+        } else if(content != null && !content.equals(observation.content)) {
+            observation.content = content;
+            observation.observedAtNanos = now;
+        }
+
+        return observation.observedAtNanos;
+    }
+
+    private boolean isMarked(String marker, String runId) throws IOException {
+        try {
+            return Files.readAllLines(root.resolve(marker), StandardCharsets.UTF_8).contains(runId);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private void writeAtomically(String fileName, List<String> lines) throws IOException {
+        Path temporary = root.resolve("." + fileName + ".tmp");
+        Files.write(temporary, lines, StandardCharsets.UTF_8);
+        Files.move(temporary, root.resolve(fileName), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String getChunkName(File lease) {
+        final String name = lease.getName();
+        return name.substring(0, name.indexOf(LEASE_OWNER_SEPARATOR));
+    }
+
+    private static String getLeaseOwner(File lease) {
+        final String name = lease.getName();
+        return name.substring(name.indexOf(LEASE_OWNER_SEPARATOR) + 1);
+    }
+
+    private static File[] listChunks(Path folder, String runId) {
+        final String runPrefix = CHUNK_PREFIX + runId + "-";
+        File[] files = folder.toFile().listFiles((dir, name) -> name.startsWith(runPrefix));
+        return files == null ? new File[0] : files;
+    }
+
+    private static File[] listFiles(Path folder) {
+        File[] files = folder.toFile().listFiles();
+        return files == null ? new File[0] : files;
+    }
+}
@@ -5,6 +5,9 @@ import name.atanasov.home.jpegcompressor.processing.JpegImageCompressionMessage;
 import name.atanasov.home.jpegcompressor.processing.IStageProcessor;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -21,10 +24,31 @@ public class FilesLoader implements IStageProcessor {
     private File rootFolder = null;
     private boolean loadRecursively = false;
     private int messagesProduced = 0;
+    private List<String> priorityFolderPaths = new ArrayList<String>();
 
     public FilesLoader(File rootFolder, boolean loadRecursively) {
+        this(rootFolder, loadRecursively, null);
+    }
+
+    /**
+     * @param rootFolder
+     * @param loadRecursively
+     * @param priorityFolders images under these folders are compressed before all the others
+     */
+    public FilesLoader(File rootFolder, boolean loadRecursively, List<File> priorityFolders) {
         this.rootFolder = rootFolder;
         this.loadRecursively = loadRecursively;
+
+        if(priorityFolders != null) {
+            for(File priorityFolder : priorityFolders) {
+                try {
+                    this.priorityFolderPaths.add(priorityFolder.getCanonicalPath() + File.separator);
+                } catch (IOException e) {
+                    logger.warning("Unable to resolve priority folder: " + priorityFolder + ". Caused by: " +
+                                    e.getMessage());
+                }
+            }
+        }
     }
 
     @Override
@@ -62,7 +86,7 @@ public class FilesLoader implements IStageProcessor {
             if (file.isFile()) {
                 if (file.getName().toLowerCase().endsWith("jpg") || file.getName().toLowerCase().endsWith("jpeg")) {
                     try {
-                        processingQueue.put(new JpegImageCompressionMessage(file, false));
+                        processingQueue.put(new JpegImageCompressionMessage(file, false, isInPriorityFolder(file)));
                         logger.fine("File: " + file.getName() + " queued for processing!");
                         lock.lock();
                         this.messagesProduced += 1;
@@ -83,4 +107,23 @@ public class FilesLoader implements IStageProcessor {
             }
         }
     }
+
+    private boolean isInPriorityFolder(File file) {
+        if(priorityFolderPaths.isEmpty()) {
+            return false;
+        }
+
+        try {
+            final String filePath = file.getCanonicalPath();
+            for(String priorityFolderPath : priorityFolderPaths) {
+                if(filePath.startsWith(priorityFolderPath)) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            logger.fine("Unable to resolve file: " + file.getName() + ". Caused by: " + e.getMessage());
+        }
+
+        return false;
+    }
 }
@@ -0,0 +1,184 @@
+package name.atanasov.home.jpegcompressor.api;
+
+import junit.framework.TestCase;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the embeddable JpegCompressor API with images encoded in memory.
+ */
+public class JpegCompressorTest extends TestCase {
+    private static final int TIMEOUT_SECONDS = 30;
+
+    private JpegCompressor compressor = null;
+    private byte[] jpegImage = null;
+
+    @Override
+    protected void setUp() throws Exception {
+        compressor = new JpegCompressor(2, 4);
+        jpegImage = encodeJpeg(200, 150, 1.0f);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        compressor.close();
+    }
+
+    public void testCompressByteArray() throws Exception {
+        CompressionResult result = compressor.compress(jpegImage, new CompressionOptions(0.5f))
+                                                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertCompressed(result, 0.5f);
+        assertEquals(jpegImage.length, result.getOriginalSize());
+    }
+
+    public void testCompressPath() throws Exception {
+        Path file = Files.createTempFile("jpeg-compressor-test", ".jpg");
+        try {
+            Files.write(file, jpegImage);
+            assertCompressed(compressor.compress(file, new CompressionOptions(0.5f))
+                                        .get(TIMEOUT_SECONDS, TimeUnit.SECONDS), 0.5f);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testCompressInputStreamWithDefaultOptions() throws Exception {
+        CompressionResult result = compressor.compress(new ByteArrayInputStream(jpegImage), null)
+                                                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertCompressed(result, new CompressionOptions().getCompressionRatio());
+    }
+
+    public void testInvalidImageFailsTheFuture() throws Exception {
+        try {
+            compressor.compress(new byte[] {1, 2, 3}, null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("Compression of an invalid image has to fail!");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException || e.getCause().getCause() instanceof IOException);
+        }
+    }
+
+    public void testCompressionOverQueueCapacityIsRejected() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        JpegCompressor boundedCompressor = new JpegCompressor(1, 1);
+        try {
+            CompletableFuture<CompressionResult> running = boundedCompressor.compress(blockingStream(release), null);
+            CompletableFuture<CompressionResult> queued = boundedCompressor.compress(blockingStream(release), null);
+            CompletableFuture<CompressionResult> rejected = boundedCompressor.compress(jpegImage, null);
+
+            assertTrue(rejected.isCompletedExceptionally());
+            try {
+                rejected.get();
+                fail("Compression over the queue capacity has to be rejected!");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+
+            release.countDown();
+            assertNotNull(running.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertNotNull(queued.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            boundedCompressor.close();
+        }
+    }
+
+    public void testCloseCompletesQueuedAndRejectsNewCompressions() throws Exception {
+        CompletableFuture<CompressionResult> queued = compressor.compress(jpegImage, null);
+        compressor.close();
+
+        assertTrue(queued.isDone());
+        assertNotNull(queued.get());
+        assertTrue(compressor.compress(jpegImage, null).isCompletedExceptionally());
+    }
+
+    public void testCompressionOptionsValidation() {
+        assertEquals(0.90f, new CompressionOptions(null).getCompressionRatio());
+        assertEquals(1.0f, new CompressionOptions(1.0f).getCompressionRatio());
+        for(float invalidRatio : new float[] {0f, -0.5f, 1.5f}) {
+            try {
+                new CompressionOptions(invalidRatio);
+                fail("Compression ratio: [" + invalidRatio + "] has to be rejected!");
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    private void assertCompressed(CompressionResult result, float compressionRatio) throws IOException {
+        assertTrue(result.getCompressedSize() < jpegImage.length);
+        assertEquals(result.getCompressedImage().length, result.getCompressedSize());
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(result.getCompressedImage()));
+        assertNotNull(decoded);
+        assertEquals(Math.round(200 * compressionRatio), decoded.getWidth());
+        assertEquals(Math.round(150 * compressionRatio), decoded.getHeight());
+    }
+
+    /**
+     * @return stream of the test image which blocks its first read till the latch is released
+     */
+    private InputStream blockingStream(CountDownLatch release) {
+        return new FilterInputStream(new ByteArrayInputStream(jpegImage)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                awaitRelease();
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public int read() throws IOException {
+                awaitRelease();
+                return super.read();
+            }
+
+            private void awaitRelease() throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    static byte[] encodeJpeg(int width, int height, float quality) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for(int x = 0; x < width; x++) {
+            for(int y = 0; y < height; y++) {
+                image.setRGB(x, y, ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x * y) % 256));
+            }
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(jpeg)) {
+            ImageWriteParam params = writer.getDefaultWriteParam();
+            params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            params.setCompressionQuality(quality);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), params);
+        } finally {
+            writer.dispose();
+        }
+        return jpeg.toByteArray();
+    }
+}
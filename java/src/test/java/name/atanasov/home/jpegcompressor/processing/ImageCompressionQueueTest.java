@@ -0,0 +1,139 @@
+package name.atanasov.home.jpegcompressor.processing;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the ordering and batching of the ImageCompressionQueue and compares the makespan
+ * of the scheduling policies on a simulated run.
+ */
+public class ImageCompressionQueueTest extends TestCase {
+    private static final int KB = 1024;
+
+    private ImageCompressionQueue queue = ImageCompressionQueue.getInstance();
+    private File folder = null;
+    private int filesCreated = 0;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = Files.createTempDirectory("queue-test").toFile();
+        queue.setSchedulingPolicy(SchedulingPolicy.FIFO);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        queue.setSchedulingPolicy(SchedulingPolicy.FIFO);
+        for(File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    public void testFifoKeepsLoadingOrder() throws Exception {
+        queue.put(message(10, false));
+        queue.put(message(30, false));
+        queue.put(message(20, false));
+
+        assertEquals(10 * KB, queue.take().getFileSize());
+        assertEquals(30 * KB, queue.take().getFileSize());
+        assertEquals(20 * KB, queue.take().getFileSize());
+    }
+
+    public void testLargestFirstAfterPriorityAndBeforeInterruption() throws Exception {
+        queue.setSchedulingPolicy(SchedulingPolicy.LARGEST_FIRST);
+        queue.put(message(10, false));
+        queue.put(new JpegImageCompressionMessage(null, true));
+        queue.put(message(30, false));
+        queue.put(message(5, true));
+        queue.put(message(20, false));
+
+        assertEquals(5 * KB, queue.take().getFileSize());
+        assertEquals(30 * KB, queue.take().getFileSize());
+        assertEquals(20 * KB, queue.take().getFileSize());
+        assertEquals(10 * KB, queue.take().getFileSize());
+        assertTrue(queue.take().isInterruptingMessage());
+    }
+
+    public void testBatchContainsOnlySmallMessages() throws Exception {
+        queue.setSchedulingPolicy(SchedulingPolicy.LARGEST_FIRST);
+        queue.put(message(100, false));
+        queue.put(message(4, false));
+        queue.put(message(4, false));
+        queue.put(message(4, false));
+        queue.put(new JpegImageCompressionMessage(null, true));
+
+        assertEquals(1, queue.takeBatch(10 * KB).size());
+        assertEquals(2, queue.takeBatch(10 * KB).size());
+        assertEquals(1, queue.takeBatch(10 * KB).size());
+        assertTrue(queue.takeBatch(10 * KB).get(0).isInterruptingMessage());
+    }
+
+    public void testBatchingDisabled() throws Exception {
+        queue.put(message(1, false));
+        queue.put(message(1, false));
+
+        assertEquals(1, queue.takeBatch(0).size());
+        assertEquals(1, queue.takeBatch(0).size());
+    }
+
+    /**
+     * Simulates a run where the compression time is proportional to the image size:
+     * twelve small images followed, in loading order, by one eight times bigger, on four threads.
+     */
+    public void testLargestFirstShortensMakespan() throws Exception {
+        final long fifoMakespan = simulateRun(SchedulingPolicy.FIFO);
+        final long largestFirstMakespan = simulateRun(SchedulingPolicy.LARGEST_FIRST);
+
+        assertTrue(largestFirstMakespan < fifoMakespan);
+    }
+
+    private long simulateRun(SchedulingPolicy policy) throws Exception {
+        final int numberOfThreads = 4;
+        final int millisPerKb = 40;
+
+        queue.setSchedulingPolicy(policy);
+        for(int i = 0; i < 12; i++) {
+            queue.put(message(1, false));
+        }
+        queue.put(message(8, false));
+        queue.put(new JpegImageCompressionMessage(null, true));
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        final long before = System.currentTimeMillis();
+        for(int i = 0; i < numberOfThreads; i++) {
+            executor.submit(() -> {
+                while(true) {
+                    JpegImageCompressionMessage message = queue.take();
+                    if(message.isInterruptingMessage()) {
+                        queue.put(message);
+                        return null;
+                    }
+                    Thread.sleep(message.getFileSize() / KB * millisPerKb);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        final long after = System.currentTimeMillis();
+
+        queue.take();
+        return after - before;
+    }
+
+    private JpegImageCompressionMessage message(int sizeInKb, boolean priority) throws IOException {
+        File file = new File(folder, "image" + (filesCreated++) + ".jpg");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(sizeInKb * KB);
+        }
+        return new JpegImageCompressionMessage(file, false, priority);
+    }
+}
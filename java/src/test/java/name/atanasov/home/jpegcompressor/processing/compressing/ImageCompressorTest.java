@@ -0,0 +1,92 @@
+package name.atanasov.home.jpegcompressor.processing.compressing;
+
+import junit.framework.TestCase;
+import name.atanasov.home.jpegcompressor.processing.ImageCompressionQueue;
+import name.atanasov.home.jpegcompressor.processing.JpegImageCompressionMessage;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Tests the skipping of already compressed images and the minimal savings guard of the ImageCompressor.
+ */
+public class ImageCompressorTest extends TestCase {
+    private File folder = null;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = Files.createTempDirectory("image-compressor-test").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for(File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    public void testImageWithEnoughSavingsIsWritten() throws Exception {
+        File image = writeImage("image.jpg", 1.0f);
+
+        compress(new ImageCompressor(1, 0.5f, null, false, 10), image);
+
+        File compressed = new File(folder, "image_compressed.jpg");
+        assertTrue(compressed.exists());
+        assertTrue(compressed.length() * 100 <= image.length() * 90);
+    }
+
+    public void testImageNotSmallerIsDiscardedAndStaleOutputDeleted() throws Exception {
+        File image = writeImage("image.jpg", 0.3f);
+        File staleCompressed = new File(folder, "image_compressed.jpg");
+        Files.write(staleCompressed.toPath(), new byte[] {1, 2, 3});
+
+        //no scaling and the highest quality, so the output is bigger than the input
+        compress(new ImageCompressor(1, 1.0f, null, false, 0), image);
+
+        assertFalse(staleCompressed.exists());
+    }
+
+    public void testImageNotSmallEnoughIsDiscarded() throws Exception {
+        File image = writeImage("image.jpg", 1.0f);
+
+        compress(new ImageCompressor(1, 0.9f, null, false, 99), image);
+
+        assertFalse(new File(folder, "image_compressed.jpg").exists());
+    }
+
+    public void testWithoutGuardOutputIsAlwaysWritten() throws Exception {
+        File image = writeImage("image.jpg", 0.3f);
+
+        compress(new ImageCompressor(1, 1.0f, null, false, null), image);
+
+        assertTrue(new File(folder, "image_compressed.jpg").exists());
+    }
+
+    public void testAlreadyCompressedImageIsSkipped() throws Exception {
+        File lowQuality = writeImage("low.jpg", 0.5f);
+        File highQuality = writeImage("high.jpg", 0.95f);
+
+        compress(new ImageCompressor(1, 0.8f, null, true, null), lowQuality, highQuality);
+
+        assertFalse(new File(folder, "low_compressed.jpg").exists());
+        assertTrue(new File(folder, "high_compressed.jpg").exists());
+    }
+
+    private File writeImage(String name, float quality) throws Exception {
+        File image = new File(folder, name);
+        Files.write(image.toPath(), JpegQualityEstimatorTest.encodeJpeg(200, 150, quality));
+        return image;
+    }
+
+    private static void compress(ImageCompressor compressor, File... images) throws Exception {
+        ImageCompressionQueue queue = ImageCompressionQueue.getInstance();
+        compressor.setMessageQueue(queue);
+        for(File image : images) {
+            queue.put(new JpegImageCompressionMessage(image, false));
+        }
+        queue.put(new JpegImageCompressionMessage(null, true));
+
+        compressor.process();
+    }
+}
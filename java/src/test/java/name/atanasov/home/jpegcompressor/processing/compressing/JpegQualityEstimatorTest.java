@@ -0,0 +1,82 @@
+package name.atanasov.home.jpegcompressor.processing.compressing;
+
+import junit.framework.TestCase;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests the JPEG quality estimation against images encoded by ImageIO with known qualities.
+ */
+public class JpegQualityEstimatorTest extends TestCase {
+
+    public void testEstimatesEncodedQuality() throws Exception {
+        for(int quality : new int[] {10, 30, 50, 60, 75, 90, 95}) {
+            byte[] jpegImage = encodeJpeg(64, 64, quality / 100f);
+            assertEquals("Estimated quality of image encoded with quality: [" + quality + "]",
+                         quality, JpegQualityEstimator.estimateQuality(new ByteArrayInputStream(jpegImage)), 1);
+        }
+    }
+
+    public void testEstimatesHighestQuality() throws Exception {
+        byte[] jpegImage = encodeJpeg(64, 64, 1.0f);
+        assertTrue(JpegQualityEstimator.estimateQuality(new ByteArrayInputStream(jpegImage)) >= 99);
+    }
+
+    public void testNotJpegIsRejected() {
+        try {
+            JpegQualityEstimator.estimateQuality(new ByteArrayInputStream("not a jpeg".getBytes()));
+            fail("Estimation of a non JPEG input has to fail!");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    public void testTruncatedHeaderHasUnknownQuality() throws Exception {
+        byte[] jpegImage = encodeJpeg(64, 64, 0.75f);
+        int dqtOffset = -1;
+        for(int i = 0; i < jpegImage.length - 1; i++) {
+            if((jpegImage[i] & 0xFF) == 0xFF && (jpegImage[i + 1] & 0xFF) == 0xDB) {
+                dqtOffset = i;
+                break;
+            }
+        }
+        assertTrue(dqtOffset > 0);
+
+        for(int length : new int[] {2, dqtOffset, dqtOffset + 10}) {
+            byte[] truncated = Arrays.copyOf(jpegImage, length);
+            assertEquals(JpegQualityEstimator.UNKNOWN_QUALITY,
+                         JpegQualityEstimator.estimateQuality(new ByteArrayInputStream(truncated)));
+        }
+    }
+
+    static byte[] encodeJpeg(int width, int height, float quality) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for(int x = 0; x < width; x++) {
+            for(int y = 0; y < height; y++) {
+                image.setRGB(x, y, ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x * y) % 256));
+            }
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(jpeg)) {
+            ImageWriteParam params = writer.getDefaultWriteParam();
+            params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            params.setCompressionQuality(quality);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), params);
+        } finally {
+            writer.dispose();
+        }
+        return jpeg.toByteArray();
+    }
+}
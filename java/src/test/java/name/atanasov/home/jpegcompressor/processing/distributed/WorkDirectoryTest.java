@@ -0,0 +1,205 @@
+package name.atanasov.home.jpegcompressor.processing.distributed;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the lease protocol of the WorkDirectory, including workers running in separate processes.
+ */
+public class WorkDirectoryTest extends TestCase {
+    private File root = null;
+    private WorkDirectory workDirectory = null;
+
+    @Override
+    protected void setUp() throws Exception {
+        root = Files.createTempDirectory("work-directory-test").toFile();
+        workDirectory = new WorkDirectory(root);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+    }
+
+    public void testClaimAndCompleteChunks() throws Exception {
+        WorkDirectory.Run run = workDirectory.startRun(30000);
+        workDirectory.publishChunk(run.getId(), 1, Arrays.asList(new File("/images/a.jpg"), new File("/images/b.jpg")));
+        workDirectory.publishChunk(run.getId(), 2, Collections.singletonList(new File("/images/c.jpg")));
+
+        File first = workDirectory.claimChunk(run.getId(), "worker");
+        File second = workDirectory.claimChunk(run.getId(), "worker");
+        assertNull(workDirectory.claimChunk(run.getId(), "worker"));
+        assertEquals(Arrays.asList(new File("/images/a.jpg").getAbsoluteFile(),
+                                   new File("/images/b.jpg").getAbsoluteFile()), workDirectory.readChunk(first));
+        assertTrue(workDirectory.hasUnfinishedChunks(run.getId()));
+
+        assertTrue(workDirectory.completeChunk(first));
+        assertTrue(workDirectory.completeChunk(second));
+        assertFalse(workDirectory.completeChunk(second));
+        assertFalse(workDirectory.hasUnfinishedChunks(run.getId()));
+        assertEquals(2, workDirectory.countCompletedChunks(run.getId()));
+    }
+
+    public void testNewRunIgnoresPreviousRun() throws Exception {
+        WorkDirectory.Run previousRun = workDirectory.startRun(30000);
+        workDirectory.publishChunk(previousRun.getId(), 1, Collections.singletonList(new File("/images/a.jpg")));
+        workDirectory.completeChunk(workDirectory.claimChunk(previousRun.getId(), "worker"));
+        workDirectory.publishChunk(previousRun.getId(), 2, Collections.singletonList(new File("/images/b.jpg")));
+        workDirectory.markFinished(previousRun.getId());
+        assertFalse(workDirectory.isRunActive(previousRun.getId()));
+
+        WorkDirectory.Run run = workDirectory.startRun(10000);
+        assertEquals(run.getId(), workDirectory.getCurrentRun().getId());
+        assertEquals(10000, workDirectory.getCurrentRun().getLeaseTimeoutMillis());
+        assertTrue(workDirectory.isRunActive(run.getId()));
+        assertFalse(workDirectory.isRunActive(previousRun.getId()));
+        assertEquals(0, workDirectory.countCompletedChunks(previousRun.getId()));
+        assertFalse(workDirectory.hasUnfinishedChunks(previousRun.getId()));
+        assertNull(workDirectory.claimChunk(run.getId(), "worker"));
+    }
+
+    public void testExpiredHeartbeatReassignsLease() throws Exception {
+        final long leaseTimeout = 300;
+        WorkDirectory.Run run = workDirectory.startRun(leaseTimeout);
+        workDirectory.publishChunk(run.getId(), 1, Collections.singletonList(new File("/images/a.jpg")));
+        workDirectory.heartbeat("dead");
+        File lease = workDirectory.claimChunk(run.getId(), "dead");
+        assertNotNull(lease);
+
+        assertEquals(0, workDirectory.reclaimExpiredLeases(run.getId(), leaseTimeout));
+        Thread.sleep(2 * leaseTimeout);
+        assertEquals(1, workDirectory.reclaimExpiredLeases(run.getId(), leaseTimeout));
+
+        assertFalse(workDirectory.completeChunk(lease));
+        assertNotNull(workDirectory.claimChunk(run.getId(), "alive"));
+    }
+
+    public void testLiveHeartbeatKeepsLease() throws Exception {
+        final long leaseTimeout = 300;
+        WorkDirectory.Run run = workDirectory.startRun(leaseTimeout);
+        workDirectory.publishChunk(run.getId(), 1, Collections.singletonList(new File("/images/a.jpg")));
+        File lease = workDirectory.claimChunk(run.getId(), "alive");
+
+        for(int i = 0; i < 10; i++) {
+            workDirectory.heartbeat("alive");
+            assertEquals(0, workDirectory.reclaimExpiredLeases(run.getId(), leaseTimeout));
+            Thread.sleep(leaseTimeout / 3);
+        }
+
+        assertTrue(workDirectory.completeChunk(lease));
+    }
+
+    public void testRestartedWorkerReleasesItsLeases() throws Exception {
+        final long leaseTimeout = 300;
+        WorkDirectory.Run run = workDirectory.startRun(leaseTimeout);
+        workDirectory.publishChunk(run.getId(), 1, Collections.singletonList(new File("/images/a.jpg")));
+        workDirectory.publishChunk(run.getId(), 2, Collections.singletonList(new File("/images/b.jpg")));
+        workDirectory.heartbeat("worker");
+        File crashedLease = workDirectory.claimChunk(run.getId(), "worker");
+        File otherLease = workDirectory.claimChunk(run.getId(), "other");
+
+        //the restarted worker keeps sending heartbeats under the same id, so the lease would never expire
+        workDirectory.heartbeat("worker");
+        assertEquals(0, workDirectory.reclaimExpiredLeases(run.getId(), leaseTimeout));
+        assertEquals(1, workDirectory.releaseLeases(run.getId(), "worker"));
+
+        assertFalse(workDirectory.completeChunk(crashedLease));
+        File lease = workDirectory.claimChunk(run.getId(), "worker");
+        assertEquals(Collections.singletonList(new File("/images/a.jpg").getAbsoluteFile()),
+                     workDirectory.readChunk(lease));
+        assertTrue(workDirectory.completeChunk(lease));
+        assertTrue(workDirectory.completeChunk(otherLease));
+        assertFalse(workDirectory.hasUnfinishedChunks(run.getId()));
+    }
+
+    public void testProcessesRacingForChunksClaimEachChunkOnce() throws Exception {
+        final int numberOfChunks = 200;
+        WorkDirectory.Run run = workDirectory.startRun(30000);
+        for(int i = 1; i <= numberOfChunks; i++) {
+            workDirectory.publishChunk(run.getId(), i, Collections.singletonList(new File("/images/" + i + ".jpg")));
+        }
+
+        File startSignal = new File(root, "start");
+        List<Process> processes = new ArrayList<Process>();
+        for(String workerId : Arrays.asList("first", "second")) {
+            processes.add(new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-cp", System.getProperty("surefire.test.class.path", System.getProperty("java.class.path")),
+                    ClaimingWorker.class.getName(), root.getPath(), run.getId(), workerId, startSignal.getPath())
+                    .redirectErrorStream(true)
+                    .start());
+        }
+        Files.createFile(startSignal.toPath());
+
+        List<String> claimed = new ArrayList<String>();
+        for(Process process : processes) {
+            List<String> claimedByProcess = readLines(process);
+            assertTrue(process.waitFor(1, TimeUnit.MINUTES));
+            assertEquals(claimedByProcess.toString(), 0, process.exitValue());
+            claimed.addAll(claimedByProcess);
+        }
+
+        Set<String> uniqueClaimed = new HashSet<String>(claimed);
+        assertEquals(numberOfChunks, claimed.size());
+        assertEquals(numberOfChunks, uniqueClaimed.size());
+    }
+
+    /**
+     * Claims and completes chunks as fast as possible once the start signal appears
+     * and prints the name of every chunk it has completed.
+     */
+    public static class ClaimingWorker {
+        public static void main(String[] args) throws Exception {
+            WorkDirectory workDirectory = new WorkDirectory(new File(args[0]));
+            final String runId = args[1];
+            final String workerId = args[2];
+            final Path startSignal = new File(args[3]).toPath();
+            while(!Files.exists(startSignal)) {
+                Thread.yield();
+            }
+
+            File lease = null;
+            while((lease = workDirectory.claimChunk(runId, workerId)) != null) {
+                if(!workDirectory.completeChunk(lease)) {
+                    throw new IllegalStateException("Unable to complete: " + lease.getName());
+                }
+                System.out.println(lease.getName().substring(0, lease.getName().indexOf('@')));
+            }
+        }
+    }
+
+    private static List<String> readLines(Process process) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                                                                              StandardCharsets.UTF_8))) {
+            String line = null;
+            while((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}